@@ -0,0 +1,281 @@
+package org.litesoft.background;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+import org.litesoft.utils.Sleeper;
+
+/**
+ * ComponentStarter starts (<code>executor.execute</code>) the <code>Runnable</code>
+ * components registered with a <code>GracefulShutdownManager</code>; either
+ * immediately, or staggered (one at a time on a starter task, spaced by
+ * <code>spacingMillis</code> plus a random jitter), in <code>StartupAware</code>
+ * priority order (higher first, then registration order).
+ * <p>
+ * Lazy components are only started on request (e.g. first wakeup or work).
+ * <p>
+ * Once closed (at shutdown), nothing more is started, and the not yet started
+ * components are handed back so that they can be shutdown without waiting for them.
+ * <p>
+ * A staggered start that fails (e.g. the <code>Executor</code> rejects it) does NOT
+ * stop the starter; the problem is held (see <code>drainProblemsTo</code>) and the
+ * component is treated as not started.
+ */
+class ComponentStarter {
+    private static final Comparator<Pending> ORDER =
+            Comparator.comparingInt( ( Pending p ) -> p.priority ).reversed().thenComparingLong( p -> p.sequence );
+
+    private final Executor executor;
+    private final LongSupplier millisTimeSource;
+    private final Sleeper sleeper;
+    private final PriorityQueue<Pending> queue = new PriorityQueue<>( ORDER );
+    private final List<GracefulShutdownable> lazies = new ArrayList<>();
+    private final List<StartupAware> readinessChecks = new ArrayList<>();
+    private final List<GracefulShutdownable> failedToStart = new ArrayList<>();
+    private final List<Exception> problems = new ArrayList<>();
+    private int spacingMillis = 0;
+    private int jitterMillis = 0;
+    private boolean staggered = false;
+    private boolean starterActive = false;
+    private boolean closed = false;
+    private long sequence = 0;
+    private long startupStartMillis = -1;
+    private long latchedMillisToReady = -1;
+    private int generation = 0; // of the starter task(s), so a reset orphans an active one
+
+    ComponentStarter( Executor executor, LongSupplier millisTimeSource, Sleeper sleeper ) {
+        this.executor = executor;
+        this.millisTimeSource = millisTimeSource;
+        this.sleeper = sleeper;
+    }
+
+    synchronized void stagger( int spacingMillis, int jitterMillis ) {
+        this.spacingMillis = Math.max( 0, spacingMillis );
+        this.jitterMillis = Math.max( 0, jitterMillis );
+        staggered = true;
+    }
+
+    void register( List<GracefulShutdownable> components ) {
+        List<Pending> toStart = new ArrayList<>();
+        boolean launchStarter = false;
+        synchronized ( this ) {
+            for ( GracefulShutdownable component : components ) {
+                if ( component instanceof StartupAware ) {
+                    readinessChecks.add( (StartupAware)component );
+                }
+                if ( (component instanceof Runnable) && !closed ) {
+                    if ( startupStartMillis == -1 ) {
+                        startupStartMillis = millisTimeSource.getAsLong();
+                    }
+                    toStart.add( new Pending( component, sequence++ ) );
+                }
+            }
+            if ( staggered ) {
+                queue.addAll( toStart );
+                if ( queue.isEmpty() || starterActive ) {
+                    return;
+                }
+                starterActive = launchStarter = true;
+            }
+        }
+        if ( launchStarter ) {
+            int starterGeneration;
+            synchronized ( this ) {
+                starterGeneration = generation;
+            }
+            try {
+                executor.execute( () -> startStaggered( starterGeneration ) );
+            }
+            catch ( RuntimeException e ) { // e.g. RejectedExecutionException
+                synchronized ( this ) {
+                    if ( starterGeneration == generation ) {
+                        starterActive = false; // so a later register can try again
+                    }
+                }
+                throw e;
+            }
+            return;
+        }
+        toStart.sort( ORDER );
+        for ( Pending pending : toStart ) {
+            executor.execute( (Runnable)pending.component );
+        }
+    }
+
+    synchronized void registerLazy( List<GracefulShutdownable> components ) {
+        for ( GracefulShutdownable component : components ) {
+            if ( component instanceof Runnable ) {
+                lazies.add( component );
+            }
+        }
+    }
+
+    /**
+     * @return true if the <code>component</code> was a not yet started lazy component, and is now started.
+     */
+    boolean startLazy( GracefulShutdownable component ) {
+        synchronized ( this ) {
+            if ( closed || !removeIdentity( lazies, component ) ) {
+                return false;
+            }
+            if ( component instanceof StartupAware ) {
+                readinessChecks.add( (StartupAware)component );
+            }
+        }
+        executor.execute( (Runnable)component );
+        return true;
+    }
+
+    /**
+     * @return the millis from the first (non-lazy) component registration to the first time the
+     * startup was observed complete (queued components started, and <code>StartupAware.isReady</code>),
+     * or -1 if the startup has not (yet) been observed complete.  Once observed, the value is latched.
+     */
+    long millisToReady() {
+        List<StartupAware> checks;
+        synchronized ( this ) {
+            if ( latchedMillisToReady != -1 ) {
+                return latchedMillisToReady;
+            }
+            if ( starterActive || !queue.isEmpty() ) {
+                return -1;
+            }
+            checks = new ArrayList<>( readinessChecks );
+        }
+        for ( StartupAware check : checks ) {
+            if ( !check.isReady() ) {
+                return -1;
+            }
+        }
+        long nowMillis = millisTimeSource.getAsLong();
+        synchronized ( this ) {
+            if ( latchedMillisToReady == -1 ) {
+                latchedMillisToReady = (startupStartMillis == -1) ? 0 : (nowMillis - startupStartMillis);
+            }
+            return latchedMillisToReady;
+        }
+    }
+
+    /**
+     * Stop starting components.
+     *
+     * @return the registered components that were never started.
+     */
+    synchronized List<GracefulShutdownable> closeAndDrainUnstarted() {
+        closed = true;
+        List<GracefulShutdownable> unstarted = new ArrayList<>( lazies );
+        lazies.clear();
+        unstarted.addAll( failedToStart );
+        failedToStart.clear();
+        while ( !queue.isEmpty() ) {
+            unstarted.add( queue.poll().component );
+        }
+        readinessChecks.removeIf( check -> containsIdentity( unstarted, check ) );
+        return unstarted;
+    }
+
+    /**
+     * Move the problems from the (staggered) starter into the <code>collector</code>.
+     */
+    synchronized void drainProblemsTo( List<Exception> collector ) {
+        collector.addAll( problems );
+        problems.clear();
+    }
+
+    synchronized void reset() {
+        queue.clear();
+        lazies.clear();
+        readinessChecks.clear();
+        failedToStart.clear();
+        problems.clear();
+        spacingMillis = jitterMillis = 0;
+        staggered = closed = starterActive = false;
+        sequence = 0;
+        startupStartMillis = latchedMillisToReady = -1;
+        generation++;
+    }
+
+    private void startStaggered( int starterGeneration ) {
+        try {
+            for ( boolean first = true; true; first = false ) {
+                long pauseMillis;
+                synchronized ( this ) {
+                    if ( (starterGeneration != generation) || closed || queue.isEmpty() ) {
+                        return;
+                    }
+                    pauseMillis = first ? 0 : spacingMillis + ThreadLocalRandom.current().nextLong( jitterMillis + 1L ); // long, so no overflow
+                }
+                if ( 0 < pauseMillis ) {
+                    sleeper.forMillis( (int)Math.min( pauseMillis, Integer.MAX_VALUE ) );
+                }
+                Pending next;
+                synchronized ( this ) {
+                    if ( (starterGeneration != generation) || closed || ((next = queue.poll()) == null) ) {
+                        return;
+                    }
+                }
+                try {
+                    executor.execute( (Runnable)next.component );
+                }
+                catch ( RuntimeException e ) { // e.g. RejectedExecutionException
+                    synchronized ( this ) {
+                        if ( starterGeneration == generation ) {
+                            failedToStart.add( next.component );
+                            problems.add( e );
+                        }
+                    }
+                }
+            }
+        }
+        catch ( RuntimeException e ) { // e.g. from the sleeper, the rest stay queued
+            synchronized ( this ) {
+                if ( starterGeneration == generation ) {
+                    problems.add( e );
+                }
+            }
+        }
+        finally {
+            synchronized ( this ) {
+                if ( starterGeneration == generation ) { // NOT reset, so (still) ours
+                    starterActive = false;
+                }
+            }
+        }
+    }
+
+    private static boolean removeIdentity( List<?> list, Object toRemove ) {
+        for ( int i = list.size() - 1; 0 <= i; i-- ) {
+            if ( list.get( i ) == toRemove ) {
+                list.remove( i );
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsIdentity( List<?> list, Object toFind ) {
+        for ( Object entry : list ) {
+            if ( entry == toFind ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Pending {
+        final GracefulShutdownable component;
+        final int priority;
+        final long sequence;
+
+        Pending( GracefulShutdownable component, long sequence ) {
+            this.component = component;
+            this.priority = (component instanceof StartupAware) ? ((StartupAware)component).startupPriority() : 0;
+            this.sequence = sequence;
+        }
+    }
+}
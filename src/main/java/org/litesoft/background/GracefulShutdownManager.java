@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.LongSupplier;
 
 import org.litesoft.annotations.NotNull;
@@ -27,20 +28,34 @@ import org.litesoft.utils.Sleeper;
  * <p>
  * Finally, if there is a <code>lastNowable</code>, it's <code>shutdownNow</code>
  * is called.
+ * <p>
+ * Managers may be nested: a child manager (see <code>addChild</code>) is
+ * registered as a single <code>ShutdownNowable</code>.  Children drain
+ * concurrently, each with its own grace budget capped by the parent's remaining
+ * time, and the parent's <code>shutdownNow</code> cascades to its children.
  */
 @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
 public class GracefulShutdownManager {
     public static final int DEFAULT_GRACE_SECS = 10;
     public static final int MINIMUM_GRACE_SECS_ACCEPTABLE = 2;
 
+    private static final Object FAMILY_LOCK = new Object();
+
     private final List<GracefulShutdownable> regulars = new ArrayList<>();
     private final List<ShutdownNowable> nowables = new ArrayList<>();
+    private final List<ShutdownableChildManager> children = new ArrayList<>();
     private final ShutdownNowable lastNowable;
     private final Executor executor;
     private final LongSupplier millisTimeSource;
     private final Sleeper sleeper;
+    private final ComponentStarter starter;
+    private GracefulShutdownManager parent; // guarded by FAMILY_LOCK
 
     private int graceSeconds = DEFAULT_GRACE_SECS;
+    private ShutdownHistory history;
+    private volatile long volatile_timesUpMillis = Long.MAX_VALUE;
+    private volatile boolean volatile_nowRequested = false;
+    private volatile long volatile_lastDrainMillis = -1;
 
     public GracefulShutdownManager maxGraceSeconds( int seconds ) {
         if ( MINIMUM_GRACE_SECS_ACCEPTABLE <= seconds ) {
@@ -49,51 +64,131 @@ public class GracefulShutdownManager {
         return this;
     }
 
+    /**
+     * Derive the graceful deadline from the <code>history</code> (when every registered
+     * component is a <code>TrackedShutdownable</code> with enough history), bounded by
+     * <code>maxGraceSeconds</code>; record each tracked component's drain duration; and
+     * shutdown now those <code>ShutdownNowable</code>s that have never finished gracefully.
+     *
+     * @param history null disables the adaptive grace
+     */
+    public GracefulShutdownManager adaptiveGrace( ShutdownHistory history ) {
+        this.history = history;
+        return this;
+    }
+
+    /**
+     * Instead of starting each <code>Runnable</code> component as it is registered, start
+     * them one at a time, in <code>StartupAware</code> priority order, pausing
+     * <code>spacingMillis</code> plus a random (0 to <code>jitterMillis</code>) between each.
+     * <p>
+     * Staggered starts that fail are reported with the problems returned from the shutdown.
+     */
+    public GracefulShutdownManager staggerStartup( int spacingMillis, int jitterMillis ) {
+        starter.stagger( spacingMillis, jitterMillis );
+        return this;
+    }
+
     public GracefulShutdownManager add( GracefulShutdownable... shutdownables ) {
         return (shutdownables == null) ? this : add( Arrays.asList( shutdownables ) );
     }
 
     public GracefulShutdownManager add( List<GracefulShutdownable> shutdownables ) {
+        starter.register( register( shutdownables ) );
+        return this;
+    }
+
+    /**
+     * Register components whose <code>Runnable</code>(s) are NOT started until <code>startLazy</code> is called for them (e.g. on first wakeup or work).
+     */
+    public GracefulShutdownManager addLazy( GracefulShutdownable... shutdownables ) {
         if ( shutdownables != null ) {
-            for ( GracefulShutdownable shutdownable : shutdownables ) {
-                if ( shutdownable != null ) {
-                    if ( shutdownable instanceof ShutdownNowable ) {
-                        append( nowables, (ShutdownNowable)shutdownable );
-                    } else {
-                        append( regulars, shutdownable );
-                    }
-                    if ( shutdownable instanceof Runnable ) {
-                        executor.execute( (Runnable)shutdownable );
-                    }
-                }
-            }
+            starter.registerLazy( register( Arrays.asList( shutdownables ) ) );
         }
         return this;
     }
 
-    public List<Exception> shutdownGracefully() {
-        List<Exception> problems = new ArrayList<>();
+    /**
+     * @return true if the <code>shutdownable</code> was registered lazily, had not yet been started, and now has been.
+     */
+    public boolean startLazy( GracefulShutdownable shutdownable ) {
+        return (shutdownable != null) && starter.startLazy( shutdownable );
+    }
 
-        long timesUpMillis = millisTimeSource.getAsLong() + (graceSeconds * 1000L);
+    /**
+     * Wait (up to <code>maxMillis</code>) for the startup to reach a steady state: all the
+     * non-lazy components started, and all the started <code>StartupAware</code>s ready.
+     * <p>
+     * The time to ready is latched the first time readiness is observed (by this polling, or
+     * pushed via <code>readinessChanged</code>), so repeated or late calls return the same value.
+     *
+     * @return millis from the first component registration to (first) observed readiness, or -1 if not ready within <code>maxMillis</code>.
+     */
+    public long awaitReady( int maxMillis ) {
+        long timesUpMillis = millisTimeSource.getAsLong() + maxMillis;
+        long millisToReady;
+        while ( (millisToReady = starter.millisToReady()) == -1 ) {
+            if ( timesUpMillis <= millisTimeSource.getAsLong() ) {
+                return -1;
+            }
+            sleeper.forMillis( 2 );
+        }
+        return millisToReady;
+    }
 
-        gracefully( nowables, problems ); // first so get a bit more time
-        gracefully( regulars, problems );
+    /**
+     * Push style readiness: call when a <code>StartupAware</code> becomes ready, so that the time to ready
+     * (see <code>awaitReady</code>) is latched at that moment rather than at the next poll.
+     */
+    public void readinessChanged() {
+        starter.millisToReady();
+    }
 
-        while ( anyRemainingNotDone() ) {
-            long remainingMillis = timesUpMillis - millisTimeSource.getAsLong();
-            if ( remainingMillis <= 0 ) {
-                return now( nowables, problems, lastNowable );
+    /**
+     * Register a child manager (e.g. for a subsystem) as a single <code>ShutdownNowable</code>.
+     * <p>
+     * The child's graceful shutdown runs via this manager's <code>Executor</code> (so multiple
+     * children drain concurrently), is limited to the lesser of the child's <code>maxGraceSeconds</code>
+     * and this manager's remaining time; and this manager's <code>shutdownNow</code>
+     * cascades to the child.  Any problems the child encounters are included in the
+     * problems returned by this manager.
+     * <p>
+     * A manager may only have one parent, and may NOT be a child of itself or of any of its descendants.
+     */
+    public GracefulShutdownManager addChild( GracefulShutdownManager child ) {
+        NotNull.AssertArgument.namedValue( "child", child );
+        synchronized ( FAMILY_LOCK ) {
+            if ( child.parent != null ) {
+                throw new IllegalArgumentException( "child manager already has a parent" );
             }
-            if ( remainingMillis > 2 ) {
-                sleeper.forMillis( 2 );
+            for ( GracefulShutdownManager ancestor = this; ancestor != null; ancestor = ancestor.parent ) {
+                if ( ancestor == child ) {
+                    throw new IllegalArgumentException( "a manager can NOT be a child of itself or of its descendants" );
+                }
             }
+            child.parent = this;
         }
-        // everything is Done except possibly the lastNowable!
-        return now( problems, lastNowable );
+        ShutdownableChildManager nowable = new ShutdownableChildManager( child, executor, this::getTimesUpMillis, millisTimeSource );
+        append( children, nowable );
+        append( nowables, nowable );
+        return this;
+    }
+
+    public List<Exception> shutdownGracefully() {
+        return shutdownGracefully( Long.MAX_VALUE );
     }
 
     public List<Exception> shutdownNow() {
-        return now( nowables, new ArrayList<>(), lastNowable );
+        List<Exception> problems = new ArrayList<>();
+        forgetUnstarted( problems, true );
+        return withChildProblems( now( nowables, problems, lastNowable ) );
+    }
+
+    /**
+     * @return the millis the last graceful shutdown took when run as a child (see <code>addChild</code>), or -1 if it has not (yet) been run as a child.
+     */
+    public long getLastDrainMillis() {
+        return volatile_lastDrainMillis;
     }
 
     public GracefulShutdownManager( Executor executor, ShutdownNowable lastNowable ) {
@@ -106,11 +201,71 @@ public class GracefulShutdownManager {
         this.lastNowable = lastNowable;
         this.millisTimeSource = millisTimeSource;
         sleeper = new Sleeper( millisTimeSource, sleepMethod );
+        starter = new ComponentStarter( this.executor, millisTimeSource, sleeper );
+    }
+
+    protected List<Exception> shutdownGracefully( long capTimesUpMillis ) {
+        List<Exception> problems = new ArrayList<>();
+        forgetUnstarted( problems, false );
+
+        long startMillis = millisTimeSource.getAsLong();
+        long timesUpMillis = Math.min( capTimesUpMillis, startMillis + (graceSeconds * 1000L) );
+        ShutdownTracker tracker = (history == null) ? null : new ShutdownTracker( history, startMillis, components(), problems );
+        if ( tracker != null ) {
+            tracker.shutdownNeverGracefulNow( problems ); // first, so they don't disable the adaptation
+            timesUpMillis = tracker.adaptiveTimesUpMillis( timesUpMillis );
+        }
+        volatile_timesUpMillis = timesUpMillis; // for the children
+
+        gracefully( nowables, problems ); // first so get a bit more time
+        gracefully( regulars, problems );
+
+        while ( anyRemainingNotDone() ) {
+            long nowMillis = millisTimeSource.getAsLong();
+            long remainingMillis = timesUpMillis - nowMillis;
+            if ( (remainingMillis <= 0) || volatile_nowRequested ) {
+                if ( tracker != null ) {
+                    tracker.recordTimedOut( nowMillis );
+                }
+                now( nowables, problems, lastNowable );
+                if ( tracker != null ) {
+                    tracker.save( problems ); // after the now, so the file I/O doesn't delay it
+                }
+                return withChildProblems( problems );
+            }
+            if ( tracker != null ) {
+                tracker.recordDrained( nowMillis );
+            }
+            if ( remainingMillis > 2 ) {
+                sleeper.forMillis( 2 );
+            }
+        }
+        if ( tracker != null ) {
+            tracker.recordDrained( millisTimeSource.getAsLong() );
+        }
+        // everything is Done except possibly the lastNowable!
+        now( problems, lastNowable );
+        if ( tracker != null ) {
+            tracker.save( problems );
+        }
+        return withChildProblems( problems );
     }
 
     protected GracefulShutdownManager resetForTests() {
         clear( regulars );
         clear( nowables );
+        synchronized ( FAMILY_LOCK ) {
+            synchronized ( children ) {
+                for ( ShutdownableChildManager child : children ) {
+                    child.getChild().parent = null;
+                }
+                children.clear();
+            }
+        }
+        volatile_timesUpMillis = Long.MAX_VALUE;
+        volatile_nowRequested = false;
+        history = null;
+        starter.reset();
         graceSeconds = 10;
         return this;
     }
@@ -133,12 +288,101 @@ public class GracefulShutdownManager {
         return graceSeconds;
     }
 
+    protected long getTimesUpMillis() {
+        return volatile_timesUpMillis;
+    }
+
+    /**
+     * The <code>shutdownNow</code> of a draining child: the drain is told to stop waiting, and
+     * shutdown now its <code>ShutdownNowable</code>s and <code>lastNowable</code> (once).
+     */
+    void requestNow() {
+        volatile_nowRequested = true;
+    }
+
+    void drainedIn( long millis ) {
+        volatile_lastDrainMillis = millis;
+    }
+
+    private List<GracefulShutdownable> register( List<GracefulShutdownable> shutdownables ) {
+        List<GracefulShutdownable> registered = new ArrayList<>();
+        if ( shutdownables != null ) {
+            for ( GracefulShutdownable shutdownable : shutdownables ) {
+                if ( shutdownable != null ) {
+                    if ( shutdownable instanceof ShutdownNowable ) {
+                        append( nowables, (ShutdownNowable)shutdownable );
+                    } else {
+                        append( regulars, shutdownable );
+                    }
+                    registered.add( shutdownable );
+                }
+            }
+        }
+        return registered;
+    }
+
+    /**
+     * Stop starting components, and as the never started ones have nothing to drain: tell them
+     * to shut down (so that they won't do anything if run later), and stop tracking them.
+     */
+    private void forgetUnstarted( List<Exception> problems, boolean now ) {
+        for ( GracefulShutdownable unstarted : starter.closeAndDrainUnstarted() ) {
+            try {
+                if ( now && (unstarted instanceof ShutdownNowable) ) {
+                    ((ShutdownNowable)unstarted).shutdownNow();
+                } else {
+                    unstarted.shutdownGracefully();
+                }
+            }
+            catch ( Exception e ) {
+                problems.add( e );
+            }
+            remove( regulars, unstarted );
+            remove( nowables, unstarted );
+        }
+        starter.drainProblemsTo( problems );
+    }
+
+    private List<GracefulShutdownable> components() {
+        List<GracefulShutdownable> components = new ArrayList<>();
+        synchronized ( nowables ) {
+            components.addAll( nowables );
+        }
+        synchronized ( regulars ) {
+            components.addAll( regulars );
+        }
+        return components;
+    }
+
+    /**
+     * Wait (outside the list locks, against a single shared deadline) for any still running child drains,
+     * then collect the children's problems.
+     */
+    private List<Exception> withChildProblems( List<Exception> problems ) {
+        List<ShutdownableChildManager> snapshot;
+        synchronized ( children ) {
+            snapshot = new ArrayList<>( children );
+        }
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( ShutdownableChildManager.DRAIN_WAIT_MILLIS );
+        for ( ShutdownableChildManager child : snapshot ) {
+            child.awaitDrained( deadlineNanos, problems );
+            child.drainProblemsTo( problems );
+        }
+        return problems;
+    }
+
     static <T extends GracefulShutdownable> void append( List<T> appendTo, T toAdd ) {
         synchronized ( appendTo ) {
             appendTo.add( toAdd );
         }
     }
 
+    static void remove( List<? extends GracefulShutdownable> removeFrom, GracefulShutdownable toRemove ) {
+        synchronized ( removeFrom ) {
+            removeFrom.removeIf( entry -> entry == toRemove );
+        }
+    }
+
     static void clear( List<? extends GracefulShutdownable> toClear ) {
         synchronized ( toClear ) {
             toClear.clear();
@@ -37,6 +37,10 @@ public class GracefulShutdownablePulsedRunner implements ShutdownNowable,
         return volatile_shutdown;
     }
 
+    public boolean isShutdownRequested() {
+        return volatile_shutdownRequested;
+    }
+
     @Override
     public void shutdownGracefully() {
         volatile_shutdownRequested = true;
@@ -54,20 +58,32 @@ public class GracefulShutdownablePulsedRunner implements ShutdownNowable,
     @Override
     public void run() {
         volatile_ourThread = Thread.currentThread();
-        while ( !volatile_shutdownRequested ) {
-            try {
-                if ( !Thread.interrupted() ) {
-                    prePulsedProcessing();
-                    pulsedRunnable.run();
-                    postPulsedProcessing();
+        try {
+            while ( !volatile_shutdownRequested ) {
+                try {
+                    if ( !Thread.interrupted() ) {
+                        prePulsedProcessing();
+                        pulsedRunnable.run();
+                        postPulsedProcessing();
+                    }
+                }
+                catch ( Exception e ) {
+                    handle( e );
                 }
             }
+        }
+        finally { // even if a pulse throws an Error
+            try {
+                preShutdownProcessing();
+            }
             catch ( Exception e ) {
                 handle( e );
             }
+            finally {
+                volatile_shutdown = true;
+                volatile_ourThread = null;
+            }
         }
-        volatile_shutdown = true;
-        volatile_ourThread = null;
     }
 
     @SuppressWarnings("RedundantThrows")
@@ -78,6 +94,14 @@ public class GracefulShutdownablePulsedRunner implements ShutdownNowable,
     protected void postPulsedProcessing() throws Exception {
     }
 
+    /**
+     * Called (on the runner's thread) after the last pulse (even if the run is ending because of an
+     * <code>Error</code>), but before <code>isShutdown</code> reports true.
+     */
+    @SuppressWarnings("RedundantThrows")
+    protected void preShutdownProcessing() throws Exception {
+    }
+
     protected void handle( Exception e ) {
         if ( !(e instanceof InterruptedException) ) {
             logger.log( e );
@@ -0,0 +1,324 @@
+package org.litesoft.background;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+import org.litesoft.annotations.NotNull;
+import org.litesoft.exceptionals.ExceptionalLongConsumer;
+import org.litesoft.exceptionals.ExceptionalRunnable;
+import org.litesoft.pragmatics.ExceptionLogger;
+import org.litesoft.pragmatics.Exceptions;
+
+/**
+ * HostSingletonPulsedRunner is a <code>GracefulShutdownablePulsedRunner</code>
+ * that only pulses while holding an exclusive <code>FileChannel</code> lock (the
+ * "lease") on the <code>lockFile</code>, so that across the JVMs on a host (that
+ * share the <code>lockFile</code>) only one runs the <code>PulsedRunnable</code>.
+ * <p>
+ * While not holding the lease, each pulse is a cheap <code>tryLock</code> followed
+ * by a <code>standbyPollMillis</code> pause (cut short by a shutdown request).  The lease is released before the
+ * runner reports <code>isShutdown</code> (e.g. after the current pulse following a
+ * <code>shutdownGracefully</code>), so that a standby peer can take over on its
+ * next poll.
+ * <p>
+ * As OS file locks are held per process (and closing ANY channel on the file drops
+ * them), all the runners in a JVM on the same (canonical) <code>lockFile</code>
+ * share a single channel and lock; the one holding it is the JVM's lease holder,
+ * and the others are standbys.
+ */
+public class HostSingletonPulsedRunner extends GracefulShutdownablePulsedRunner {
+    public static final int DEFAULT_STANDBY_POLL_MILLIS = 1000;
+
+    private static final Map<Path, SharedLock> SHARED_LOCKS = new HashMap<>(); // also the lock for all SharedLock state
+
+    private final Lease lease;
+
+    public HostSingletonPulsedRunner( ExceptionLogger logger, Path lockFile, int standbyPollMillis, PulsedRunnable pulsedRunnable ) {
+        this( logger, lockFile, standbyPollMillis, pulsedRunnable, System::currentTimeMillis, Thread::sleep );
+    }
+
+    public HostSingletonPulsedRunner( ExceptionLogger logger, Path lockFile, PulsedRunnable pulsedRunnable ) {
+        this( logger, lockFile, DEFAULT_STANDBY_POLL_MILLIS, pulsedRunnable );
+    }
+
+    @SuppressWarnings("unused")
+    public HostSingletonPulsedRunner( ExceptionLogger logger, Path lockFile, ExceptionalRunnable pulsedRunnable ) {
+        this( logger, lockFile, PulsedRunnable.from( pulsedRunnable ) );
+    }
+
+    protected HostSingletonPulsedRunner( ExceptionLogger logger, Path lockFile, int standbyPollMillis, PulsedRunnable pulsedRunnable,
+                                         LongSupplier millisTimeSource, ExceptionalLongConsumer sleepMethod ) {
+        this( logger, new Lease( lockFile, standbyPollMillis, pulsedRunnable, millisTimeSource, sleepMethod ) );
+    }
+
+    private HostSingletonPulsedRunner( ExceptionLogger logger, Lease lease ) {
+        super( logger, lease );
+        this.lease = lease;
+        lease.shutdownRequested = this::isShutdownRequested;
+    }
+
+    public boolean isLeaseHeld() {
+        return lease.volatile_heldSinceMillis != -1;
+    }
+
+    public long getLeaseAcquisitions() {
+        return lease.acquisitions.get();
+    }
+
+    /**
+     * @return total millis the lease has been held (including the current holding, if any).
+     */
+    public long getLeaseHeldMillis() {
+        long heldSinceMillis = lease.volatile_heldSinceMillis;
+        long current = (heldSinceMillis == -1) ? 0 : (lease.millisTimeSource.getAsLong() - heldSinceMillis);
+        return lease.priorHeldMillis.get() + current;
+    }
+
+    public long getStandbyPolls() {
+        return lease.standbyPolls.get();
+    }
+
+    @Override
+    public void shutdownGracefully() {
+        super.shutdownGracefully();
+        lease.wakeStandby();
+    }
+
+    @Override
+    public void shutdownNow() {
+        super.shutdownNow();
+        lease.wakeStandby();
+    }
+
+    @Override
+    protected void preShutdownProcessing()
+            throws IOException {
+        boolean interrupted = Thread.interrupted(); // an interrupted release would fail (closing the shared channel)
+        try {
+            lease.release();
+        }
+        finally {
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class SharedLock {
+        final Path canonicalFile;
+        final FileChannel channel;
+        int users = 0;
+        FileLock lock;
+        Lease holder;
+
+        SharedLock( Path canonicalFile, FileChannel channel ) {
+            this.canonicalFile = canonicalFile;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Only accessed by the runner's thread, except for the metrics and <code>wakeStandby</code>.
+     */
+    private static class Lease implements PulsedRunnable {
+        private final Path lockFile;
+        private final int standbyPollMillis;
+        private final PulsedRunnable pulsedRunnable;
+        private final LongSupplier millisTimeSource;
+        private final ExceptionalLongConsumer sleepMethod;
+        private final AtomicLong acquisitions = new AtomicLong();
+        private final AtomicLong priorHeldMillis = new AtomicLong();
+        private final AtomicLong standbyPolls = new AtomicLong();
+        private volatile long volatile_heldSinceMillis = -1;
+        private BooleanSupplier shutdownRequested = () -> false;
+        private SharedLock shared; // when attached
+        private Thread standbyThread; // guarded by this, set only while in standby
+
+        Lease( Path lockFile, int standbyPollMillis, PulsedRunnable pulsedRunnable,
+               LongSupplier millisTimeSource, ExceptionalLongConsumer sleepMethod ) {
+            this.lockFile = NotNull.AssertArgument.namedValue( "lockFile", lockFile );
+            this.standbyPollMillis = Math.max( 1, standbyPollMillis );
+            this.pulsedRunnable = NotNull.AssertArgument.namedValue( "pulsedRunnable", pulsedRunnable );
+            this.millisTimeSource = NotNull.AssertArgument.namedValue( "millisTimeSource", millisTimeSource );
+            this.sleepMethod = NotNull.AssertArgument.namedValue( "sleepMethod", sleepMethod );
+        }
+
+        @Override
+        public void run()
+                throws Exception {
+            boolean holding;
+            try {
+                holding = holding() || tryAcquire();
+            }
+            catch ( IOException e ) {
+                standby(); // don't spin logging the problem
+                throw e;
+            }
+            if ( holding ) {
+                pulsedRunnable.run();
+            } else {
+                standbyPolls.incrementAndGet();
+                standby();
+            }
+        }
+
+        void release()
+                throws IOException {
+            synchronized ( SHARED_LOCKS ) {
+                if ( shared != null ) {
+                    try {
+                        if ( shared.holder == this ) {
+                            FileLock lock = shared.lock;
+                            dropHolding();
+                            if ( lock.isValid() ) {
+                                lock.release();
+                            }
+                        }
+                    }
+                    finally {
+                        detach();
+                    }
+                }
+            }
+        }
+
+        private boolean holding() {
+            synchronized ( SHARED_LOCKS ) {
+                if ( (shared == null) || (shared.holder != this) ) {
+                    return false;
+                }
+                if ( shared.lock.isValid() ) {
+                    return true;
+                }
+                dropHolding(); // lost, e.g. shared channel closed by an interrupt
+                return false;
+            }
+        }
+
+        private boolean tryAcquire()
+                throws IOException {
+            synchronized ( SHARED_LOCKS ) {
+                if ( (shared != null) && !shared.channel.isOpen() ) {
+                    detach();
+                }
+                if ( shared == null ) {
+                    attach();
+                }
+                if ( shared.holder != null ) { // held by another runner in this JVM
+                    return false;
+                }
+                FileLock acquired;
+                try {
+                    acquired = shared.channel.tryLock();
+                }
+                catch ( OverlappingFileLockException e ) { // locked via some other channel in this JVM
+                    return false;
+                }
+                if ( acquired == null ) { // held by another process
+                    return false;
+                }
+                shared.lock = acquired;
+                shared.holder = this;
+            }
+            acquisitions.incrementAndGet();
+            volatile_heldSinceMillis = millisTimeSource.getAsLong();
+            return true;
+        }
+
+        private void attach()
+                throws IOException {
+            Path canonicalFile = canonical( lockFile );
+            SharedLock existing = SHARED_LOCKS.get( canonicalFile );
+            if ( (existing == null) || !existing.channel.isOpen() ) {
+                existing = new SharedLock( canonicalFile, FileChannel.open( canonicalFile, StandardOpenOption.WRITE ) );
+                SHARED_LOCKS.put( canonicalFile, existing );
+            }
+            existing.users++;
+            shared = existing;
+        }
+
+        private void detach()
+                throws IOException {
+            SharedLock detaching = shared;
+            shared = null;
+            if ( detaching.holder == this ) {
+                dropHolding( detaching );
+            }
+            if ( --detaching.users == 0 ) {
+                SHARED_LOCKS.remove( detaching.canonicalFile, detaching );
+                detaching.channel.close();
+            }
+        }
+
+        private void dropHolding() {
+            dropHolding( shared );
+        }
+
+        private void dropHolding( SharedLock from ) {
+            from.lock = null;
+            from.holder = null;
+            long heldSinceMillis = volatile_heldSinceMillis;
+            if ( heldSinceMillis != -1 ) {
+                priorHeldMillis.addAndGet( millisTimeSource.getAsLong() - heldSinceMillis );
+                volatile_heldSinceMillis = -1;
+            }
+        }
+
+        /**
+         * Interrupt the standby pause (if in it), so that a shutdown doesn't wait out the <code>standbyPollMillis</code>.
+         */
+        synchronized void wakeStandby() {
+            if ( standbyThread != null ) {
+                standbyThread.interrupt();
+            }
+        }
+
+        private void standby()
+                throws Exception {
+            synchronized ( this ) {
+                standbyThread = Thread.currentThread();
+            }
+            try {
+                long timesUpMillis = millisTimeSource.getAsLong() + standbyPollMillis;
+                for ( long remainingMillis = standbyPollMillis; (0 < remainingMillis) && !shutdownRequested.getAsBoolean();
+                      remainingMillis = timesUpMillis - millisTimeSource.getAsLong() ) {
+                    try {
+                        sleepMethod.accept( remainingMillis );
+                    }
+                    catch ( InterruptedException e ) {
+                        Exceptions.swallowExpected( e ); // woken (or a spurious interrupt, so sleep the rest)
+                    }
+                }
+            }
+            finally {
+                synchronized ( this ) {
+                    standbyThread = null;
+                    Thread.interrupted(); // clear any wake, the run loop checks for the shutdown request
+                }
+            }
+        }
+
+        private static Path canonical( Path file )
+                throws IOException {
+            Path absolute = file.toAbsolutePath().normalize();
+            try {
+                Files.createFile( absolute );
+            }
+            catch ( FileAlreadyExistsException ignore ) {
+                // expected after the first time
+            }
+            return absolute.toRealPath();
+        }
+    }
+}
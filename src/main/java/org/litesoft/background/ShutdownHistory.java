@@ -0,0 +1,194 @@
+package org.litesoft.background;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+
+import org.litesoft.annotations.NotNull;
+
+/**
+ * ShutdownHistory records, per <code>TrackedShutdownable</code> key, the most
+ * recent graceful drain durations (and the pending work at the time), and
+ * persists them to a small local file between runs.
+ * <p>
+ * The estimated drain duration for a component is a high percentile of its
+ * history (per unit of pending work) scaled by its current pending work.  Runs
+ * that did not drain before the deadline are recorded as timed out, and if a
+ * component's history has enough time outs and no drains, it is considered to
+ * never finish gracefully (and is shutdown now).  Those forced "now" runs are
+ * also recorded, and every <code>GRACEFUL_TRIAL_EVERY</code>th run is a graceful
+ * trial, so that a component that has been fixed can recover.
+ * <p>
+ * File format: one line per key: <code>key&lt;TAB&gt;millis:pendingWork,...</code>
+ * where a timed out run has a millis of -1, and a forced "now" run -2.
+ */
+public class ShutdownHistory {
+    public static final int DEFAULT_PERCENTILE = 95;
+    public static final int MAX_SAMPLES_PER_KEY = 20;
+    public static final int MIN_SAMPLES_TO_TRUST = 3;
+    public static final int GRACEFUL_TRIAL_EVERY = 5;
+
+    static final long TIMED_OUT = -1;
+    static final long FORCED_NOW = -2;
+
+    private final Path file;
+    private final Map<String, List<long[]>> samplesByKey = new LinkedHashMap<>(); // long[]{millis, pendingWork}
+    private int percentile = DEFAULT_PERCENTILE;
+
+    public static ShutdownHistory load( Path file )
+            throws IOException {
+        ShutdownHistory history = new ShutdownHistory( file );
+        if ( Files.isRegularFile( file ) ) {
+            for ( String line : Files.readAllLines( file, StandardCharsets.UTF_8 ) ) {
+                history.parse( line );
+            }
+        }
+        return history;
+    }
+
+    public ShutdownHistory( Path file ) {
+        this.file = NotNull.AssertArgument.namedValue( "file", file );
+    }
+
+    /**
+     * @param percentile (1-100) of the history used to estimate drain durations; out of range values are ignored.
+     */
+    public synchronized ShutdownHistory percentile( int percentile ) {
+        if ( (1 <= percentile) && (percentile <= 100) ) {
+            this.percentile = percentile;
+        }
+        return this;
+    }
+
+    public synchronized void save()
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        samplesByKey.forEach( ( key, samples ) -> {
+            sb.append( key ).append( '\t' );
+            for ( int i = 0; i < samples.size(); i++ ) {
+                long[] sample = samples.get( i );
+                sb.append( (i == 0) ? "" : "," ).append( sample[0] ).append( ':' ).append( sample[1] );
+            }
+            sb.append( '\n' );
+        } );
+        Path parent = file.toAbsolutePath().getParent();
+        if ( parent != null ) {
+            Files.createDirectories( parent );
+        }
+        Path temp = file.resolveSibling( file.getFileName() + ".tmp" );
+        Files.writeString( temp, sb, StandardCharsets.UTF_8 );
+        Files.move( temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    public synchronized void recordDrained( String key, long millis, int pendingWork ) {
+        record( key, Math.max( 0, millis ), pendingWork );
+    }
+
+    public synchronized void recordTimedOut( String key, int pendingWork ) {
+        record( key, TIMED_OUT, pendingWork );
+    }
+
+    /**
+     * Record a run that was shutdown now (without a graceful attempt) because of <code>neverGraceful</code>.
+     */
+    public synchronized void recordForcedNow( String key, int pendingWork ) {
+        record( key, FORCED_NOW, pendingWork );
+    }
+
+    /**
+     * @return the estimated drain millis, empty if there is not enough history to trust, or <code>Long.MAX_VALUE</code> if the percentile landed on a timed out run.
+     */
+    public synchronized OptionalLong estimateMillis( String key, int pendingWork ) {
+        List<long[]> samples = samples( key );
+        double[] perUnits = new double[samples.size()];
+        int count = 0;
+        for ( long[] sample : samples ) {
+            if ( sample[0] != FORCED_NOW ) { // no duration information
+                perUnits[count++] = (sample[0] == TIMED_OUT) ? Double.POSITIVE_INFINITY : sample[0] / (double)(sample[1] + 1);
+            }
+        }
+        if ( count < MIN_SAMPLES_TO_TRUST ) {
+            return OptionalLong.empty();
+        }
+        perUnits = Arrays.copyOf( perUnits, count );
+        Arrays.sort( perUnits );
+        int index = Math.min( perUnits.length - 1, (int)Math.ceil( perUnits.length * percentile / 100.0 ) - 1 );
+        double perUnit = perUnits[Math.max( 0, index )];
+        if ( Double.isInfinite( perUnit ) ) {
+            return OptionalLong.of( Long.MAX_VALUE );
+        }
+        return OptionalLong.of( (long)Math.ceil( perUnit * (Math.max( 0, pendingWork ) + 1) ) );
+    }
+
+    /**
+     * @return true if there are enough time outs AND no drains, unless this run is due a graceful trial
+     * (the preceding <code>GRACEFUL_TRIAL_EVERY - 1</code> runs were all forced "now").
+     */
+    public synchronized boolean neverGraceful( String key ) {
+        int timedOuts = 0;
+        int trailingForced = 0;
+        for ( long[] sample : samples( key ) ) {
+            if ( sample[0] == FORCED_NOW ) {
+                trailingForced++;
+            } else if ( sample[0] == TIMED_OUT ) {
+                timedOuts++;
+                trailingForced = 0;
+            } else {
+                return false; // drained at least once
+            }
+        }
+        return (MIN_SAMPLES_TO_TRUST <= timedOuts) && (trailingForced < (GRACEFUL_TRIAL_EVERY - 1));
+    }
+
+    /**
+     * @return true if the <code>key</code> can be recorded (and persisted): non-empty and without tabs or line breaks.
+     */
+    public static boolean isValidKey( String key ) {
+        return (key != null) && !key.isEmpty()
+               && (key.indexOf( '\t' ) == -1) && (key.indexOf( '\n' ) == -1) && (key.indexOf( '\r' ) == -1);
+    }
+
+    private List<long[]> samples( String key ) {
+        List<long[]> samples = samplesByKey.get( key );
+        return (samples == null) ? List.of() : samples;
+    }
+
+    private void record( String key, long millis, int pendingWork ) {
+        NotNull.AssertArgument.namedValue( "key", key );
+        if ( !isValidKey( key ) ) {
+            throw new IllegalArgumentException( "key must be non-empty and not contain tabs or line breaks: '" + key + "'" );
+        }
+        List<long[]> samples = samplesByKey.computeIfAbsent( key, k -> new ArrayList<>() );
+        samples.add( new long[]{millis, Math.max( 0, pendingWork )} );
+        while ( samples.size() > MAX_SAMPLES_PER_KEY ) {
+            samples.remove( 0 ); // oldest
+        }
+    }
+
+    private void parse( String line ) {
+        int tabAt = line.indexOf( '\t' );
+        if ( tabAt > 0 ) {
+            String key = line.substring( 0, tabAt );
+            for ( String sample : line.substring( tabAt + 1 ).split( "," ) ) {
+                int colonAt = sample.indexOf( ':' );
+                if ( colonAt > 0 ) {
+                    try {
+                        record( key, Long.parseLong( sample.substring( 0, colonAt ).trim() ),
+                                Integer.parseInt( sample.substring( colonAt + 1 ).trim() ) );
+                    }
+                    catch ( NumberFormatException ignore ) {
+                        // corrupt sample -- history is advisory, so just skip it
+                    }
+                }
+            }
+        }
+    }
+}
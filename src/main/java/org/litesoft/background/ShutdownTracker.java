@@ -0,0 +1,133 @@
+package org.litesoft.background;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+
+/**
+ * ShutdownTracker tracks a single graceful shutdown of the
+ * <code>TrackedShutdownable</code>s against a <code>ShutdownHistory</code>:
+ * shutting down "now" those known to never finish gracefully, deriving the
+ * adaptive deadline (from the rest), and recording the drain durations (or
+ * time outs, or forced "now"s).
+ */
+class ShutdownTracker {
+    static final long ADAPTIVE_SLACK_MILLIS = 500;
+
+    private final ShutdownHistory history;
+    private final long startMillis;
+    private final List<Tracked> pending = new ArrayList<>();
+    private final boolean allTracked;
+
+    /**
+     * A component whose key (or pending work) can't be read, or whose key is not valid (see
+     * <code>ShutdownHistory.isValidKey</code>), is left untracked, with the problem added to the <code>problems</code>.
+     */
+    ShutdownTracker( ShutdownHistory history, long startMillis, List<GracefulShutdownable> components, List<Exception> problems ) {
+        this.history = history;
+        this.startMillis = startMillis;
+        boolean allTracked = true;
+        for ( GracefulShutdownable component : components ) {
+            Tracked tracked = (component instanceof TrackedShutdownable) ? track( (TrackedShutdownable)component, problems ) : null;
+            if ( tracked != null ) {
+                pending.add( tracked );
+            } else {
+                allTracked = false;
+            }
+        }
+        this.allTracked = allTracked;
+    }
+
+    /**
+     * Shorten the deadline IFF every component is tracked and has trusted history.
+     * <p>
+     * Note: should be called after <code>shutdownNeverGracefulNow</code>, so those don't disable the adaptation.
+     */
+    long adaptiveTimesUpMillis( long hardTimesUpMillis ) {
+        if ( !allTracked ) {
+            return hardTimesUpMillis;
+        }
+        long maxEstimate = 0;
+        for ( Tracked tracked : pending ) {
+            OptionalLong estimate = history.estimateMillis( tracked.key, tracked.pendingWork );
+            if ( estimate.isEmpty() || (estimate.getAsLong() == Long.MAX_VALUE) ) {
+                return hardTimesUpMillis;
+            }
+            maxEstimate = Math.max( maxEstimate, estimate.getAsLong() );
+        }
+        return Math.min( hardTimesUpMillis, startMillis + maxEstimate + ADAPTIVE_SLACK_MILLIS );
+    }
+
+    /**
+     * Any <code>ShutdownNowable</code>s that have never finished gracefully are shutdown now (recorded as such, and no longer tracked).
+     */
+    void shutdownNeverGracefulNow( List<Exception> problems ) {
+        for ( int at = pending.size(); 0 <= --at; ) { // backwards!
+            Tracked tracked = pending.get( at );
+            if ( (tracked.component instanceof ShutdownNowable) && history.neverGraceful( tracked.key ) ) {
+                pending.remove( at );
+                history.recordForcedNow( tracked.key, tracked.pendingWork );
+                try {
+                    ((ShutdownNowable)tracked.component).shutdownNow();
+                }
+                catch ( Exception e ) {
+                    problems.add( e );
+                }
+            }
+        }
+    }
+
+    void recordDrained( long nowMillis ) {
+        for ( int at = pending.size(); 0 <= --at; ) { // backwards!
+            Tracked tracked = pending.get( at );
+            if ( tracked.component.isShutdown() ) {
+                pending.remove( at );
+                history.recordDrained( tracked.key, nowMillis - startMillis, tracked.pendingWork );
+            }
+        }
+    }
+
+    void recordTimedOut( long nowMillis ) {
+        recordDrained( nowMillis );
+        for ( Tracked tracked : pending ) {
+            history.recordTimedOut( tracked.key, tracked.pendingWork );
+        }
+        pending.clear();
+    }
+
+    void save( List<Exception> problems ) {
+        try {
+            history.save();
+        }
+        catch ( Exception e ) {
+            problems.add( e );
+        }
+    }
+
+    private static Tracked track( TrackedShutdownable component, List<Exception> problems ) {
+        try {
+            String key = component.shutdownHistoryKey();
+            if ( ShutdownHistory.isValidKey( key ) ) {
+                return new Tracked( component, key, component.pendingWork() );
+            }
+            problems.add( new IllegalArgumentException( "invalid shutdownHistoryKey (" + component.getClass().getName()
+                                                        + "), so not tracked: '" + key + "'" ) );
+        }
+        catch ( Exception e ) {
+            problems.add( e );
+        }
+        return null;
+    }
+
+    private static class Tracked {
+        final GracefulShutdownable component;
+        final String key;
+        final int pendingWork;
+
+        Tracked( GracefulShutdownable component, String key, int pendingWork ) {
+            this.component = component;
+            this.key = key;
+            this.pendingWork = pendingWork;
+        }
+    }
+}
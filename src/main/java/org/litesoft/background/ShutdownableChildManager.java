@@ -0,0 +1,146 @@
+package org.litesoft.background;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+import org.litesoft.annotations.NotNull;
+
+/**
+ * ShutdownableChildManager adapts a child <code>GracefulShutdownManager</code>
+ * into a <code>ShutdownNowable</code> (<code>GracefulShutdownable</code>) so
+ * that it can be registered with a parent <code>GracefulShutdownManager</code>
+ * (see <code>GracefulShutdownManager.addChild</code>).
+ * <p>
+ * <code>shutdownGracefully</code> does NOT block; the child's graceful shutdown
+ * is run (drained) via the parent's <code>Executor</code>, capped by the parent's
+ * remaining time.
+ * <p>
+ * <code>shutdownNow</code> cascades to the child without blocking: if the drain is
+ * running, it is told to stop waiting (and it then shuts down the child's
+ * <code>ShutdownNowable</code>s and <code>lastNowable</code>, once); otherwise the
+ * child is shutdown now directly, and any still queued drain does nothing.  The parent
+ * then waits for the running drains (see <code>awaitDrained</code>) so that their
+ * problems and drain millis are available.
+ */
+class ShutdownableChildManager implements ShutdownNowable {
+    static final int DRAIN_WAIT_MILLIS = 1000;
+
+    private enum State {IDLE, QUEUED, DRAINING, NOWED}
+
+    private final GracefulShutdownManager child;
+    private final Executor executor;
+    private final LongSupplier capTimesUpMillisSource;
+    private final LongSupplier millisTimeSource;
+    private final List<Exception> problems = new ArrayList<>();
+    private final CountDownLatch drained = new CountDownLatch( 1 );
+    private volatile boolean volatile_shutdown = false;
+    private State state = State.IDLE; // guarded by this
+
+    ShutdownableChildManager( GracefulShutdownManager child, Executor executor,
+                              LongSupplier capTimesUpMillisSource, LongSupplier millisTimeSource ) {
+        this.child = NotNull.AssertArgument.namedValue( "child", child );
+        this.executor = NotNull.AssertArgument.namedValue( "executor", executor );
+        this.capTimesUpMillisSource = NotNull.AssertArgument.namedValue( "capTimesUpMillisSource", capTimesUpMillisSource );
+        this.millisTimeSource = NotNull.AssertArgument.namedValue( "millisTimeSource", millisTimeSource );
+    }
+
+    GracefulShutdownManager getChild() {
+        return child;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return volatile_shutdown;
+    }
+
+    @Override
+    public synchronized void shutdownGracefully() {
+        if ( state == State.IDLE ) {
+            state = State.QUEUED;
+            try {
+                executor.execute( this::drain );
+            }
+            catch ( RuntimeException e ) { // e.g. RejectedExecutionException
+                state = State.IDLE;
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void shutdownNow() {
+        synchronized ( this ) {
+            if ( state == State.DRAINING ) {
+                child.requestNow(); // the drain will do the rest
+                return;
+            }
+            if ( state == State.NOWED ) {
+                return;
+            }
+            state = State.NOWED; // any queued drain is now a no-op
+        }
+        collect( child.shutdownNow() );
+        volatile_shutdown = true;
+    }
+
+    /**
+     * Wait (up to the <code>deadlineNanos</code>, per <code>System.nanoTime</code>) for a running drain;
+     * if it does not finish, that is reported as a problem (rather than its problems being silently lost).
+     */
+    void awaitDrained( long deadlineNanos, List<Exception> collector ) {
+        synchronized ( this ) {
+            if ( state != State.DRAINING ) {
+                return;
+            }
+        }
+        try {
+            if ( drained.await( Math.max( 0, deadlineNanos - System.nanoTime() ), TimeUnit.NANOSECONDS ) ) {
+                return;
+            }
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        collector.add( new TimeoutException( "child GracefulShutdownManager still draining after "
+                                             + DRAIN_WAIT_MILLIS + "ms, its further problems will NOT be reported" ) );
+    }
+
+    void drainProblemsTo( List<Exception> collector ) {
+        synchronized ( problems ) {
+            collector.addAll( problems );
+            problems.clear();
+        }
+    }
+
+    private void drain() {
+        synchronized ( this ) {
+            if ( state != State.QUEUED ) { // shutdown now, before the executor got to us
+                return;
+            }
+            state = State.DRAINING;
+        }
+        long startMillis = millisTimeSource.getAsLong();
+        try {
+            collect( child.shutdownGracefully( capTimesUpMillisSource.getAsLong() ) );
+        }
+        catch ( RuntimeException e ) {
+            collect( List.of( e ) );
+        }
+        finally {
+            child.drainedIn( millisTimeSource.getAsLong() - startMillis );
+            volatile_shutdown = true;
+            drained.countDown();
+        }
+    }
+
+    private void collect( List<Exception> childProblems ) {
+        synchronized ( problems ) {
+            problems.addAll( childProblems );
+        }
+    }
+}
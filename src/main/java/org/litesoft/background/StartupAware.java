@@ -0,0 +1,18 @@
+package org.litesoft.background;
+
+/**
+ * StartupAware is a <code>GracefulShutdownable</code> that participates in the
+ * <code>GracefulShutdownManager</code>'s startup: <code>startupPriority</code>
+ * orders the starting of the <code>Runnable</code>s (higher first), and
+ * <code>isReady</code> signals that it has reached a steady state (see
+ * <code>GracefulShutdownManager.awaitReady</code>).
+ */
+public interface StartupAware extends GracefulShutdownable {
+    default int startupPriority() {
+        return 0;
+    }
+
+    default boolean isReady() {
+        return true;
+    }
+}
@@ -0,0 +1,20 @@
+package org.litesoft.background;
+
+/**
+ * TrackedShutdownable is a <code>GracefulShutdownable</code> whose graceful
+ * drain durations can be recorded in (and estimated from) a
+ * <code>ShutdownHistory</code> (see <code>GracefulShutdownManager.adaptiveGrace</code>).
+ */
+public interface TrackedShutdownable extends GracefulShutdownable {
+    /**
+     * @return the (stable across runs) key to record this component's history under; must not contain tabs or line breaks.
+     */
+    String shutdownHistoryKey();
+
+    /**
+     * @return the current amount of pending work (e.g. queue depth), which scales the estimated drain duration.
+     */
+    default int pendingWork() {
+        return 0;
+    }
+}
@@ -1,8 +1,16 @@
 package org.litesoft.background;
 
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.OptionalLong;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 import org.litesoft.SleeperBasedTestHelper;
@@ -98,6 +106,514 @@ class GracefulShutdownManagerTest extends SleeperBasedTestHelper implements Exec
         assertEquals( 0, zExceptions.size(), zExceptions::toString );
     }
 
+    @Test
+    void childrenShutdownGracefully() {
+        ExecutorService threads = Executors.newCachedThreadPool( Thread::new );
+        try {
+            StubbornShutdownNowable ingest = new StubbornShutdownNowable( false );
+            StubbornShutdownNowable export = new StubbornShutdownNowable( false );
+            GracefulShutdownManager ingestManager = new GracefulShutdownManager( this, null ).add( ingest );
+            GracefulShutdownManager exportManager = new GracefulShutdownManager( this, null ).add( export );
+            GracefulShutdownManager shutdownManager =
+                    new GracefulShutdownManager( threads, null ).maxGraceSeconds( 2 )
+                            .addChild( ingestManager )
+                            .addChild( exportManager );
+            assertEquals( -1, ingestManager.getLastDrainMillis() );
+
+            List<Exception> zExceptions = shutdownManager.shutdownGracefully();
+
+            assertEquals( 0, zExceptions.size(), zExceptions::toString );
+            assertTrue( ingest.isShutdown() );
+            assertTrue( export.isShutdown() );
+            assertFalse( ingest.nowCalled );
+            assertFalse( export.nowCalled );
+            assertTrue( 0 <= ingestManager.getLastDrainMillis() );
+            assertTrue( 0 <= exportManager.getLastDrainMillis() );
+        }
+        finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void childGraceCappedByParent() {
+        ExecutorService threads = Executors.newCachedThreadPool( Thread::new );
+        try {
+            StubbornShutdownNowable stubborn = new StubbornShutdownNowable( true );
+            StubbornShutdownNowable childLast = new StubbornShutdownNowable( true );
+            IllegalStateException problem = new IllegalStateException( "graceful problem" );
+            GracefulShutdownManager childManager =
+                    new GracefulShutdownManager( this, childLast ).maxGraceSeconds( Integer.MAX_VALUE )
+                            .add( stubborn, new ThrowingGracefulShutdownable( problem ) );
+            GracefulShutdownManager shutdownManager =
+                    new GracefulShutdownManager( threads, null ).maxGraceSeconds( 2 ).addChild( childManager );
+
+            long started = System.currentTimeMillis();
+            List<Exception> zExceptions = shutdownManager.shutdownGracefully();
+            long took = System.currentTimeMillis() - started;
+
+            assertEquals( List.of( problem ), zExceptions ); // from the child's drain
+            assertTrue( stubborn.nowCalled );
+            assertEquals( 1, childLast.nowCalls );
+            assertTrue( 0 <= childManager.getLastDrainMillis() );
+            assertTrue( took < 5000, () -> "took: " + took );
+        }
+        finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void childDrainsNeverStartedOnBusyExecutor()
+            throws InterruptedException {
+        ExecutorService busy = Executors.newSingleThreadExecutor( Thread::new );
+        CountDownLatch release = new CountDownLatch( 1 );
+        try {
+            busy.execute( () -> {
+                try {
+                    release.await();
+                }
+                catch ( InterruptedException ignore ) {
+                    // test over
+                }
+            } );
+            GracefulShutdownManager shutdownManager = new GracefulShutdownManager( busy, null ).maxGraceSeconds( 2 );
+            List<StubbornShutdownNowable> childLasts = new ArrayList<>();
+            for ( int i = 0; i < 4; i++ ) {
+                StubbornShutdownNowable childLast = new StubbornShutdownNowable( true );
+                childLasts.add( childLast );
+                shutdownManager.addChild( new GracefulShutdownManager( this, childLast ).add( new StubbornShutdownNowable( true ) ) );
+            }
+
+            long started = System.currentTimeMillis();
+            List<Exception> zExceptions = shutdownManager.shutdownGracefully();
+            long took = System.currentTimeMillis() - started;
+
+            assertEquals( 0, zExceptions.size(), zExceptions::toString );
+            assertTrue( took < 3000, () -> "took: " + took ); // NOT 2000 + a wait per child
+            for ( StubbornShutdownNowable childLast : childLasts ) {
+                assertEquals( 1, childLast.nowCalls );
+            }
+
+            release.countDown(); // the queued drains now run, and should do nothing
+            busy.shutdown();
+            assertTrue( busy.awaitTermination( 5, TimeUnit.SECONDS ) );
+            for ( StubbornShutdownNowable childLast : childLasts ) {
+                assertEquals( 1, childLast.nowCalls );
+            }
+        }
+        finally {
+            release.countDown();
+            busy.shutdownNow();
+        }
+    }
+
+    @Test
+    void childShutdownNowCascades() {
+        StubbornShutdownNowable stubborn = new StubbornShutdownNowable( true );
+        StubbornShutdownNowable childLast = new StubbornShutdownNowable( true );
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( this, null )
+                        .addChild( new GracefulShutdownManager( this, childLast ).add( stubborn ) );
+
+        List<Exception> zExceptions = shutdownManager.shutdownNow();
+
+        assertEquals( 0, zExceptions.size(), zExceptions::toString );
+        assertTrue( stubborn.nowCalled );
+        assertTrue( stubborn.isShutdown() );
+        assertEquals( 1, childLast.nowCalls );
+    }
+
+    @Test
+    void childFamilyRules() {
+        GracefulShutdownManager a = new GracefulShutdownManager( this, null );
+        GracefulShutdownManager b = new GracefulShutdownManager( this, null );
+        GracefulShutdownManager c = new GracefulShutdownManager( this, null );
+        a.addChild( b );
+        b.addChild( c );
+
+        assertThrows( IllegalArgumentException.class, () -> a.addChild( a ) ); // self
+        assertThrows( IllegalArgumentException.class, () -> c.addChild( a ) ); // cycle
+        assertThrows( IllegalArgumentException.class, () -> a.addChild( c ) ); // second parent
+        assertThrows( IllegalArgumentException.class, () -> b.addChild( c ) ); // same child twice
+
+        a.resetForTests(); // releases b
+        c.addChild( new GracefulShutdownManager( this, null ) );
+        new GracefulShutdownManager( this, null ).addChild( b );
+    }
+
+    @Test
+    void adaptiveGrace() {
+        ShutdownHistory history = new ShutdownHistory( Path.of( "unused" ) ) {
+            @Override
+            public void save() {
+            }
+        };
+        for ( int i = 0; i < ShutdownHistory.MIN_SAMPLES_TO_TRUST; i++ ) {
+            history.recordDrained( "slow", 100, 0 );
+            history.recordTimedOut( "never", 0 );
+        }
+        TrackedStubborn slow = new TrackedStubborn( "slow" );
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( this, null, this, this )
+                        .resetForTests().maxGraceSeconds( 10 ).adaptiveGrace( history )
+                        .add( slow );
+        acceptAdd = 1000;
+
+        List<Exception> zExceptions = shutdownManager.shutdownGracefully();
+
+        assertEquals( 0, zExceptions.size(), zExceptions::toString );
+        assertTrue( slow.nowCalled );
+        assertTrue( (now - OUR_TIME) < 10000, () -> "took: " + (now - OUR_TIME) ); // adaptive deadline, NOT the 10 secs
+        assertEquals( OptionalLong.of( Long.MAX_VALUE ), history.estimateMillis( "slow", 0 ) ); // timed out recorded
+
+        TrackedStubborn never = new TrackedStubborn( "never" );
+        shutdownManager.resetForTests().adaptiveGrace( history ).add( never );
+        long started = now;
+
+        zExceptions = shutdownManager.shutdownGracefully();
+
+        assertEquals( 0, zExceptions.size(), zExceptions::toString );
+        assertTrue( never.nowCalled );
+        assertEquals( started, now ); // no waiting
+    }
+
+    @Test
+    void adaptiveGraceWithNeverGraceful() {
+        TrackedStubborn stuck = new TrackedStubborn( "stuck" );
+        TrackedStubborn never = new TrackedStubborn( "never" );
+        List<Boolean> stuckNowCalledAtSave = new ArrayList<>();
+        ShutdownHistory history = new ShutdownHistory( Path.of( "unused" ) ) {
+            @Override
+            public void save() {
+                stuckNowCalledAtSave.add( stuck.nowCalled );
+            }
+        };
+        for ( int i = 0; i < ShutdownHistory.MIN_SAMPLES_TO_TRUST; i++ ) {
+            history.recordDrained( "stuck", 100, 0 );
+            history.recordTimedOut( "never", 0 );
+        }
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( this, null, this, this )
+                        .resetForTests().maxGraceSeconds( 10 ).adaptiveGrace( history )
+                        .add( stuck, never );
+        acceptAdd = 1000;
+
+        List<Exception> zExceptions = shutdownManager.shutdownGracefully();
+
+        assertEquals( 0, zExceptions.size(), zExceptions::toString );
+        assertTrue( never.nowCalled );
+        assertTrue( stuck.nowCalled );
+        assertEquals( 1000, now - OUR_TIME ); // adaptive deadline (100 + slack), NOT the 10 secs
+        assertEquals( List.of( true ), stuckNowCalledAtSave ); // saved after the now
+        assertTrue( history.neverGraceful( "never" ) ); // forced now recorded, trial not yet due
+    }
+
+    @Test
+    void adaptiveGraceWithUntrackableComponents() {
+        RuntimeException pendingWorkProblem = new IllegalStateException( "pendingWork" );
+        TrackedStubborn badKey = new TrackedStubborn( "a\tb" );
+        TrackedStubborn badPendingWork = new TrackedStubborn( "ok" ) {
+            @Override
+            public int pendingWork() {
+                throw pendingWorkProblem;
+            }
+        };
+        ShutdownHistory history = new ShutdownHistory( Path.of( "unused" ) ) {
+            @Override
+            public void save() {
+            }
+        };
+        for ( int i = 0; i < ShutdownHistory.MIN_SAMPLES_TO_TRUST; i++ ) {
+            history.recordDrained( "ok", 100, 0 );
+        }
+        StubbornShutdownNowable lastNowable = new StubbornShutdownNowable( true );
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( this, lastNowable, this, this )
+                        .resetForTests().maxGraceSeconds( 2 ).adaptiveGrace( history )
+                        .add( badKey, badPendingWork );
+        acceptAdd = 1000;
+
+        List<Exception> zExceptions = shutdownManager.shutdownGracefully();
+
+        assertEquals( 2, zExceptions.size(), zExceptions::toString );
+        assertTrue( zExceptions.get( 0 ) instanceof IllegalArgumentException, zExceptions::toString );
+        assertSame( pendingWorkProblem, zExceptions.get( 1 ) );
+        assertTrue( badKey.nowCalled );
+        assertTrue( badPendingWork.nowCalled );
+        assertTrue( lastNowable.nowCalled );
+        assertEquals( 2000, now - OUR_TIME ); // untracked, so the hard deadline
+    }
+
+    @Test
+    void staggeredStartup() {
+        List<String> started = new ArrayList<>();
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( startingExecutor( started ), null, this, this )
+                        .staggerStartup( 100, 0 );
+        acceptAdd = 100;
+
+        shutdownManager.add( new StartableMock( "A", 0 ), new StartableMock( "B", 5 ), new StartableMock( "C", 0 ) );
+
+        assertEquals( List.of( "B", "A", "C" ), started ); // priority, then registration order
+        assertEquals( OUR_TIME + 200, now ); // 2 pauses
+        assertEquals( 200, shutdownManager.awaitReady( 0 ) );
+    }
+
+    @Test
+    void lazyStartup() {
+        List<String> started = new ArrayList<>();
+        StartableMock lazy = new StartableMock( "L", 0 );
+        StartableMock neverStarted = new StartableMock( "N", 0 );
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( startingExecutor( started ), null, this, this )
+                        .add( new StartableMock( "R", 0 ) )
+                        .addLazy( lazy, neverStarted );
+        assertEquals( List.of( "R" ), started );
+
+        assertTrue( shutdownManager.startLazy( lazy ) );
+        assertFalse( shutdownManager.startLazy( lazy ) ); // already started
+        assertEquals( List.of( "R", "L" ), started );
+
+        acceptAdd = 1000;
+        List<Exception> zExceptions = shutdownManager.shutdownNow();
+
+        assertEquals( 0, zExceptions.size(), zExceptions::toString );
+        assertTrue( neverStarted.nowCalled );
+        assertFalse( shutdownManager.startLazy( neverStarted ) ); // never after shutdown
+        assertEquals( List.of( "R", "L" ), started );
+        assertFalse( shutdownManager.anyRemainingNotDone() );
+    }
+
+    @Test
+    void unstartedNotWaitedFor() {
+        StartableMock neverStarted = new StartableMock( "N", 0 );
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( this, null, this, this ).addLazy( neverStarted );
+        acceptAdd = 1000;
+
+        List<Exception> zExceptions = shutdownManager.shutdownGracefully();
+
+        assertEquals( 0, zExceptions.size(), zExceptions::toString );
+        assertTrue( neverStarted.gracefulCalled );
+        assertEquals( OUR_TIME, now ); // no waiting
+    }
+
+    @Test
+    void awaitReady() {
+        StartableMock notReady = new StartableMock( "NR", 0 );
+        notReady.ready = false;
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( this, null, this, this ).add( notReady );
+        acceptAdd = 1000;
+
+        assertEquals( -1, shutdownManager.awaitReady( 2000 ) );
+
+        notReady.ready = true;
+        long millisToReady = now - OUR_TIME;
+        assertEquals( millisToReady, shutdownManager.awaitReady( 2000 ) );
+
+        now += 5000; // late caller
+        assertEquals( millisToReady, shutdownManager.awaitReady( 0 ) ); // latched
+    }
+
+    @Test
+    void readinessChanged() {
+        StartableMock notReady = new StartableMock( "NR", 0 );
+        notReady.ready = false;
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( this, null, this, this ).add( notReady );
+        now += 300;
+        shutdownManager.readinessChanged(); // not ready yet
+
+        now += 200;
+        notReady.ready = true;
+        shutdownManager.readinessChanged(); // pushed
+
+        now += 5000;
+        assertEquals( 500, shutdownManager.awaitReady( 0 ) );
+    }
+
+    @Test
+    void staggeredStartupPriorityExtremes() {
+        List<String> started = new ArrayList<>();
+        new GracefulShutdownManager( startingExecutor( started ), null, this, this )
+                .staggerStartup( 0, 0 )
+                .add( new StartableMock( "Min", Integer.MIN_VALUE ),
+                      new StartableMock( "Zero", 0 ),
+                      new StartableMock( "Max", Integer.MAX_VALUE ) );
+
+        assertEquals( List.of( "Max", "Zero", "Min" ), started );
+    }
+
+    @Test
+    void staggeredStartupPauseExtremes() {
+        List<String> started = new ArrayList<>();
+        acceptAdd = Integer.MAX_VALUE;
+        new GracefulShutdownManager( startingExecutor( started ), null, this, this )
+                .staggerStartup( Integer.MAX_VALUE, Integer.MAX_VALUE )
+                .add( new StartableMock( "A", 0 ), new StartableMock( "B", 0 ) );
+
+        assertEquals( List.of( "A", "B" ), started );
+        assertEquals( Integer.MAX_VALUE, now - OUR_TIME ); // one (capped) pause
+    }
+
+    @Test
+    void staggeredStartupFailures() {
+        List<String> started = new ArrayList<>();
+        RejectedExecutionException rejected = new RejectedExecutionException( "B" );
+        Executor executor = startingExecutor( started );
+        StartableMock b = new StartableMock( "B", 0 );
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( runnable -> {
+                    if ( runnable == b ) {
+                        throw rejected;
+                    }
+                    executor.execute( runnable );
+                }, null, this, this ).staggerStartup( 0, 0 )
+                        .add( new StartableMock( "A", 0 ), b, new StartableMock( "C", 0 ) );
+        assertEquals( List.of( "A", "C" ), started ); // NOT stopped by the rejection
+
+        RuntimeException sleepProblem = new IllegalStateException( "sleep" );
+        toThrow = sleepProblem;
+        shutdownManager.staggerStartup( 1, 0 ).add( new StartableMock( "D", 0 ), new StartableMock( "E", 0 ) );
+        assertEquals( List.of( "A", "C", "D" ), started ); // E still queued
+
+        acceptAdd = 1000;
+        List<Exception> zExceptions = shutdownManager.shutdownNow();
+
+        assertEquals( List.of( rejected, sleepProblem ), zExceptions );
+        assertTrue( b.nowCalled );
+        assertEquals( List.of( "A", "C", "D" ), started ); // E never started
+    }
+
+    @Test
+    void resetDuringActiveStagger() {
+        List<Runnable> tasks = new ArrayList<>();
+        GracefulShutdownManager shutdownManager =
+                new GracefulShutdownManager( tasks::add, null, this, this ).staggerStartup( 0, 0 )
+                        .add( new StartableMock( "A", 0 ) );
+        assertEquals( 1, tasks.size() ); // the stagger starter, not yet run
+
+        shutdownManager.resetForTests().staggerStartup( 0, 0 ).add( new StartableMock( "B", 0 ) );
+        assertEquals( 2, tasks.size() ); // a new stagger starter
+
+        tasks.get( 0 ).run(); // orphaned
+        assertEquals( 2, tasks.size() );
+        tasks.get( 1 ).run();
+        assertEquals( 3, tasks.size() );
+        assertEquals( "B", ((StartableMock)tasks.get( 2 )).name );
+    }
+
+    private Executor startingExecutor( List<String> started ) {
+        return runnable -> {
+            if ( runnable instanceof StartableMock ) {
+                started.add( ((StartableMock)runnable).name );
+            } else {
+                runnable.run(); // the stagger starter
+            }
+        };
+    }
+
+    static class StartableMock extends StubbornShutdownNowable implements StartupAware,
+                                                                          Runnable {
+        final String name;
+        final int priority;
+        volatile boolean ready = true;
+        volatile boolean gracefulCalled = false;
+
+        StartableMock( String name, int priority ) {
+            super( true );
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public void shutdownGracefully() {
+            gracefulCalled = true;
+        }
+
+        @Override
+        public int startupPriority() {
+            return priority;
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void run() {
+            throw new IllegalStateException( "not expected to actually be run" );
+        }
+    }
+
+    static class TrackedStubborn extends StubbornShutdownNowable implements TrackedShutdownable {
+        final String key;
+
+        TrackedStubborn( String key ) {
+            super( true );
+            this.key = key;
+        }
+
+        @Override
+        public String shutdownHistoryKey() {
+            return key;
+        }
+    }
+
+    static class ThrowingGracefulShutdownable implements GracefulShutdownable {
+        final Exception toThrow;
+        volatile boolean shutdown = false;
+
+        ThrowingGracefulShutdownable( Exception toThrow ) {
+            this.toThrow = toThrow;
+        }
+
+        @Override
+        public void shutdownGracefully()
+                throws Exception {
+            shutdown = true;
+            throw toThrow;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+    }
+
+    static class StubbornShutdownNowable implements ShutdownNowable {
+        final boolean ignoreGraceful;
+        volatile boolean shutdown = false;
+        volatile boolean nowCalled = false;
+        volatile int nowCalls = 0;
+
+        StubbornShutdownNowable( boolean ignoreGraceful ) {
+            this.ignoreGraceful = ignoreGraceful;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public void shutdownGracefully() {
+            if ( !ignoreGraceful ) {
+                shutdown = true;
+            }
+        }
+
+        @Override
+        public synchronized void shutdownNow() {
+            nowCalls++;
+            nowCalled = true;
+            shutdown = true;
+        }
+    }
+
     class AbstractMockShutdowner {
         final String name;
         boolean shutdown = false;
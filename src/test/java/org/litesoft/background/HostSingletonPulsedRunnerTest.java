@@ -0,0 +1,213 @@
+package org.litesoft.background;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+import org.litesoft.SleeperBasedTestHelper;
+import org.litesoft.pragmatics.ExceptionLogger;
+import org.litesoft.utils.Sleeper;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostSingletonPulsedRunnerTest extends SleeperBasedTestHelper implements ExceptionLogger {
+    private Runnable onSleep;
+
+    @Override
+    public void accept( long value ) // ExceptionalLongConsumer
+            throws Exception {
+        super.accept( value );
+        if ( onSleep != null ) {
+            onSleep.run();
+        }
+    }
+
+    @Test
+    void test_leaseMetrics()
+            throws IOException {
+        Path dir = Files.createTempDirectory( "HostSingletonPulsedRunnerTest" );
+        Path lockFile = dir.resolve( "rotation.lock" );
+        try {
+            acceptAdd = 5;
+            AtomicInteger standbyPulses = new AtomicInteger();
+            HostSingletonPulsedRunner standby =
+                    new HostSingletonPulsedRunner( this, lockFile, 10, standbyPulses::incrementAndGet, this, this );
+            onSleep = () -> {
+                if ( standby.getStandbyPolls() >= 2 ) {
+                    standby.shutdownGracefully();
+                }
+            };
+            AtomicInteger holderPulses = new AtomicInteger();
+            long[] acquiredAt = {-1};
+            HostSingletonPulsedRunner[] holder = {null};
+            holder[0] = new HostSingletonPulsedRunner( this, lockFile, 10, () -> {
+                if ( acquiredAt[0] == -1 ) {
+                    acquiredAt[0] = now;
+                }
+                now += 100;
+                int pulses = holderPulses.incrementAndGet();
+                if ( pulses == 1 ) {
+                    assertTrue( holder[0].isLeaseHeld() );
+                    standby.run(); // same JVM (shared lock), so only standby polls
+                }
+                if ( pulses == 3 ) {
+                    holder[0].shutdownGracefully();
+                }
+            }, this, this );
+
+            holder[0].run();
+
+            assertTrue( standby.isShutdown() );
+            assertEquals( 0, standbyPulses.get() );
+            assertEquals( 2, standby.getStandbyPolls() );
+            assertEquals( 0, standby.getLeaseAcquisitions() );
+            assertEquals( 0, standby.getLeaseHeldMillis() );
+
+            assertTrue( holder[0].isShutdown() );
+            assertFalse( holder[0].isLeaseHeld() );
+            assertEquals( 3, holderPulses.get() );
+            assertEquals( 0, holder[0].getStandbyPolls() );
+            assertEquals( 1, holder[0].getLeaseAcquisitions() );
+            long heldMillis = now - acquiredAt[0];
+            assertEquals( heldMillis, holder[0].getLeaseHeldMillis() );
+            now += 1000;
+            assertEquals( heldMillis, holder[0].getLeaseHeldMillis() ); // No longer accumulating
+
+            HostSingletonPulsedRunner[] takeover = {null};
+            takeover[0] = new HostSingletonPulsedRunner( this, lockFile, 10, () -> takeover[0].shutdownGracefully(), this, this );
+            takeover[0].run();
+            assertEquals( 1, takeover[0].getLeaseAcquisitions() );
+            assertEquals( 0, exceptions.size(), exceptions::toString );
+        }
+        finally {
+            Files.deleteIfExists( lockFile );
+            Files.deleteIfExists( dir );
+        }
+    }
+
+    @Test
+    void test_takeover()
+            throws IOException {
+        Path dir = Files.createTempDirectory( "HostSingletonPulsedRunnerTest" );
+        Path lockFile = dir.resolve( "compaction.lock" );
+        ExecutorService executorService = Executors.newCachedThreadPool( Thread::new );
+        AtomicInteger firstPulses = new AtomicInteger();
+        AtomicInteger secondPulses = new AtomicInteger();
+        HostSingletonPulsedRunner first = new HostSingletonPulsedRunner( this, lockFile, 5, firstPulses::incrementAndGet );
+        HostSingletonPulsedRunner second = new HostSingletonPulsedRunner( this, lockFile, 5, secondPulses::incrementAndGet );
+        try {
+            executorService.execute( first );
+            waitFor( first::isLeaseHeld );
+            executorService.execute( second );
+            waitFor( () -> second.getStandbyPolls() > 1 );
+
+            assertTrue( first.isLeaseHeld() );
+            assertFalse( second.isLeaseHeld() );
+            assertTrue( firstPulses.get() > 0 );
+            assertEquals( 0, secondPulses.get() );
+
+            first.shutdownGracefully();
+            waitFor( first::isShutdown );
+            assertFalse( first.isLeaseHeld() );
+            assertEquals( 1, first.getLeaseAcquisitions() );
+            long firstHeldMillis = first.getLeaseHeldMillis();
+            assertTrue( firstHeldMillis >= 0 );
+
+            waitFor( second::isLeaseHeld ); // takeover
+            waitFor( () -> secondPulses.get() > 0 );
+            assertEquals( 1, second.getLeaseAcquisitions() );
+            assertEquals( firstHeldMillis, first.getLeaseHeldMillis() ); // No longer accumulating
+
+            second.shutdownNow();
+            waitFor( second::isShutdown );
+            assertFalse( second.isLeaseHeld() );
+            assertEquals( 0, exceptions.size(), exceptions::toString );
+        }
+        finally {
+            first.shutdownNow();
+            second.shutdownNow();
+            executorService.shutdownNow();
+            Files.deleteIfExists( lockFile );
+            Files.deleteIfExists( dir );
+        }
+    }
+
+    @Test
+    void test_errorReleasesLease()
+            throws IOException {
+        Path dir = Files.createTempDirectory( "HostSingletonPulsedRunnerTest" );
+        Path lockFile = dir.resolve( "broken.lock" );
+        try {
+            HostSingletonPulsedRunner broken = new HostSingletonPulsedRunner( this, lockFile, 10, () -> {
+                throw new AssertionError( "broken" );
+            }, this, this );
+            assertThrows( AssertionError.class, broken::run );
+            assertTrue( broken.isShutdown() );
+            assertFalse( broken.isLeaseHeld() );
+
+            HostSingletonPulsedRunner[] takeover = {null};
+            takeover[0] = new HostSingletonPulsedRunner( this, lockFile, 10, () -> takeover[0].shutdownGracefully(), this, this );
+            takeover[0].run();
+            assertEquals( 1, takeover[0].getLeaseAcquisitions() );
+            assertEquals( 0, exceptions.size(), exceptions::toString );
+        }
+        finally {
+            Files.deleteIfExists( lockFile );
+            Files.deleteIfExists( dir );
+        }
+    }
+
+    @Test
+    void test_shutdownWakesStandby()
+            throws IOException {
+        Path dir = Files.createTempDirectory( "HostSingletonPulsedRunnerTest" );
+        Path lockFile = dir.resolve( "standby.lock" );
+        ExecutorService executorService = Executors.newCachedThreadPool( Thread::new );
+        HostSingletonPulsedRunner holder = new HostSingletonPulsedRunner( this, lockFile, 60000, () -> {} );
+        HostSingletonPulsedRunner standby = new HostSingletonPulsedRunner( this, lockFile, 60000, () -> {} );
+        try {
+            executorService.execute( holder );
+            waitFor( holder::isLeaseHeld );
+            executorService.execute( standby );
+            waitFor( () -> standby.getStandbyPolls() > 0 );
+
+            standby.shutdownGracefully();
+            waitFor( standby::isShutdown ); // NOT the 60 secs poll
+            assertEquals( 1, standby.getStandbyPolls() );
+            assertEquals( 0, standby.getLeaseAcquisitions() );
+            assertEquals( 0, exceptions.size(), exceptions::toString );
+        }
+        finally {
+            holder.shutdownNow();
+            standby.shutdownNow();
+            executorService.shutdownNow();
+            Files.deleteIfExists( lockFile );
+            Files.deleteIfExists( dir );
+        }
+    }
+
+    private void waitFor( BooleanSupplier condition ) {
+        for ( int i = 0; !condition.getAsBoolean(); i++ ) {
+            if ( i > 2500 ) {
+                fail( "condition not met within 5 secs" );
+            }
+            sleeper.forMillis( 2 );
+        }
+    }
+
+    private final List<Exception> exceptions = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void log( Exception e ) {
+        exceptions.add( e );
+    }
+
+    private final Sleeper sleeper = Sleeper.INSTANCE;
+}
@@ -0,0 +1,84 @@
+package org.litesoft.background;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShutdownHistoryTest {
+
+    @Test
+    void estimateMillis() {
+        ShutdownHistory history = new ShutdownHistory( Path.of( "unused" ) );
+
+        history.recordDrained( "A", 100, 0 );
+        history.recordDrained( "A", 200, 0 );
+        assertEquals( OptionalLong.empty(), history.estimateMillis( "A", 0 ) ); // Not enough to trust
+
+        history.recordDrained( "A", 300, 0 );
+        assertEquals( OptionalLong.of( 300 ), history.estimateMillis( "A", 0 ) );
+        assertEquals( OptionalLong.of( 100 ), history.percentile( 1 ).estimateMillis( "A", 0 ) );
+        assertEquals( OptionalLong.of( 100 ), history.percentile( 0 ).estimateMillis( "A", 0 ) ); // Ignored, still 1
+        assertEquals( OptionalLong.of( 600 ), history.percentile( 50 ).estimateMillis( "A", 2 ) ); // 200 per unit * 3 units
+
+        history.recordTimedOut( "A", 0 );
+        assertEquals( OptionalLong.of( Long.MAX_VALUE ), history.percentile( 95 ).estimateMillis( "A", 0 ) );
+        assertFalse( history.neverGraceful( "A" ) );
+    }
+
+    @Test
+    void neverGraceful() {
+        ShutdownHistory history = new ShutdownHistory( Path.of( "unused" ) );
+        for ( int i = 0; i < ShutdownHistory.MIN_SAMPLES_TO_TRUST; i++ ) {
+            assertFalse( history.neverGraceful( "B" ) );
+            history.recordTimedOut( "B", 5 );
+        }
+        assertTrue( history.neverGraceful( "B" ) );
+        assertFalse( history.neverGraceful( "C" ) );
+
+        for ( int i = 1; i < ShutdownHistory.GRACEFUL_TRIAL_EVERY; i++ ) {
+            assertTrue( history.neverGraceful( "B" ) );
+            history.recordForcedNow( "B", 5 );
+        }
+        assertFalse( history.neverGraceful( "B" ) ); // graceful trial due
+        assertEquals( OptionalLong.of( Long.MAX_VALUE ), history.estimateMillis( "B", 0 ) ); // forced nows ignored
+
+        history.recordTimedOut( "B", 5 ); // failed trial
+        assertTrue( history.neverGraceful( "B" ) );
+
+        history.recordDrained( "B", 100, 5 ); // fixed!
+        assertFalse( history.neverGraceful( "B" ) );
+    }
+
+    @Test
+    void saveAndLoad()
+            throws IOException {
+        Path dir = Files.createTempDirectory( "ShutdownHistoryTest" );
+        Path file = dir.resolve( "shutdown.history" );
+        try {
+            assertEquals( OptionalLong.empty(), ShutdownHistory.load( file ).estimateMillis( "A", 0 ) ); // no file
+
+            ShutdownHistory history = new ShutdownHistory( file );
+            for ( int i = 0; i < ShutdownHistory.MAX_SAMPLES_PER_KEY; i++ ) {
+                history.recordDrained( "A", 1000, 0 ); // will be pushed out
+            }
+            for ( int i = 0; i < ShutdownHistory.MAX_SAMPLES_PER_KEY; i++ ) {
+                history.recordDrained( "A", 10, 1 );
+            }
+            history.recordTimedOut( "B", 0 );
+            history.save();
+
+            ShutdownHistory loaded = ShutdownHistory.load( file );
+            assertEquals( OptionalLong.of( 5 ), loaded.estimateMillis( "A", 0 ) );
+            assertEquals( OptionalLong.empty(), loaded.estimateMillis( "B", 0 ) );
+        }
+        finally {
+            Files.deleteIfExists( file );
+            Files.deleteIfExists( dir );
+        }
+    }
+}